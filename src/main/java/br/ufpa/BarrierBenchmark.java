@@ -0,0 +1,77 @@
+package br.ufpa;
+
+import org.apache.zookeeper.KeeperException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static br.ufpa.SyncPrimitive.log;
+
+/**
+ * Measures how long it takes to cross a barrier, so the ZooKeeper and the same-host implementations can
+ * be compared. Every participant runs the same number of enter/leave rounds without doing any work
+ * in between; start one instance per participant.
+ */
+public final class BarrierBenchmark {
+    private BarrierBenchmark() {
+    }
+
+    interface BarrierFactory {
+        IBarrier create(int round) throws IOException;
+    }
+
+    static void run(BarrierFactory factory, int rounds) throws IOException, KeeperException, InterruptedException {
+        long[] enter = new long[rounds];
+        long[] leave = new long[rounds];
+        IBarrier barrier = null;
+        for (int i = 0; i <= rounds; i++) {
+            barrier = factory.create(i);
+            long start = System.nanoTime();
+            barrier.enter();
+            long entered = System.nanoTime();
+            barrier.leave();
+            long left = System.nanoTime();
+            // Round 0 is a warm-up and only makes every participant start together
+            if (i > 0) {
+                enter[i - 1] = entered - start;
+                leave[i - 1] = left - entered;
+            }
+        }
+        if (barrier != null) {
+            barrier.close();
+        }
+        report("enter", enter);
+        report("leave", leave);
+    }
+
+    private static void report(String op, long[] samples) {
+        Arrays.sort(samples);
+        System.out.printf("%s: rounds=%d min=%.1fus p50=%.1fus p99=%.1fus max=%.1fus%n", op, samples.length,
+                          samples[0] / 1e3, samples[samples.length / 2] / 1e3,
+                          samples[(int) ((samples.length - 1) * 0.99)] / 1e3, samples[samples.length - 1] / 1e3);
+    }
+
+    public static void main(String[] args) {
+        System.out.println("### BENCHMARK DE BARREIRA ###");
+        if (args.length < 4 || !(args[0].equals("zk") && args.length >= 5 || args[0].equals("local"))) {
+            System.out.println("USO: java -jar barreira_benchmark.jar zk <IP:Porta> <nProcessos> <grupo> <rodadas>");
+            System.out.println("     java -jar barreira_benchmark.jar local <arquivo> <nProcessos> <rodadas>");
+            System.exit(-1);
+        }
+
+        int size = Integer.parseInt(args[2]);
+        try {
+            if (args[0].equals("zk")) {
+                // A separate root per round, so a late leaver never deletes the tree of the next round
+                run(round -> new RestrictedBarrier(args[1], "/bench-" + round, args[3], size), Integer.parseInt(args[4]));
+            } else {
+                var barrier = new MappedFileBarrier(Path.of(args[1]), size);
+                run(round -> barrier, Integer.parseInt(args[3]));
+            }
+        } catch (IOException | KeeperException | InterruptedException e) {
+            log.error(e.toString());
+            System.exit(-1);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package br.ufpa;
+
+import org.apache.zookeeper.KeeperException;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static br.ufpa.SyncPrimitive.log;
+
+/**
+ * Host-level daemon that holds a single ZooKeeper session and joins the restricted barrier as one
+ * aggregated participant on behalf of all local processes. Local processes talk to it through
+ * {@link SidecarBarrier} over a Unix domain socket, so the ensemble only sees one session per host.
+ */
+public class BarrierSidecar {
+    static final byte ENTER = 'E';
+    static final byte LEAVE = 'L';
+    static final byte OK = 1;
+    static final byte FAIL = 0;
+
+    final String address;
+    final String root;
+    final String subsetId;
+    final int hosts;
+    final int localProcesses;
+    final Path socketPath;
+
+    // Local processes waiting for the current round to be released
+    private final List<SocketChannel> waiting = new ArrayList<>();
+    // Local processes of the round whose ZooKeeper operation is running, null when none is
+    private List<SocketChannel> releasing;
+    // Local processes inside the active barrier, all of which the leave round waits for
+    private final Set<SocketChannel> members = new HashSet<>();
+    // Local processes that left the barrier and are not expected again until they enter
+    private final Set<SocketChannel> left = new HashSet<>();
+    // Arrivals the next enter round waits for, lowered when a local process disconnects before entering
+    private int expected;
+    private RestrictedBarrier barrier;
+    // Rounds entered so far. Every sidecar of the job counts the same rounds, so they agree on the root of each
+    private int round;
+
+    BarrierSidecar(String address, String root, String subsetId, int hosts, int localProcesses, Path socketPath) {
+        this.address = address;
+        this.root = root;
+        this.subsetId = subsetId;
+        this.hosts = hosts;
+        this.localProcesses = localProcesses;
+        this.socketPath = socketPath;
+        this.expected = localProcesses;
+    }
+
+    /**
+     * Accept local processes forever. Each connection gets its own thread, which only forwards requests to
+     * {@link #arrive(byte, SocketChannel)}.
+     */
+    public void serve() throws IOException {
+        Files.deleteIfExists(socketPath);
+        try (var server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+            System.out.println(LocalTime.now() + ": Listening on " + socketPath);
+            while (true) {
+                var channel = server.accept();
+                var handler = new Thread(() -> handle(channel));
+                handler.setDaemon(true);
+                handler.start();
+            }
+        } finally {
+            Files.deleteIfExists(socketPath);
+        }
+    }
+
+    private void handle(SocketChannel channel) {
+        var request = ByteBuffer.allocate(1);
+        try (channel) {
+            while (true) {
+                request.clear();
+                if (channel.read(request) < 0) {
+                    break;
+                }
+                arrive(request.get(0), channel);
+            }
+        } catch (IOException e) {
+            log.error(e.toString());
+        } finally {
+            boolean started;
+            synchronized (this) {
+                started = disconnected(channel);
+            }
+            if (started) {
+                release();
+            }
+        }
+    }
+
+    /**
+     * Register a local process in the current round. The last local process to arrive performs the
+     * ZooKeeper operation for the whole host and releases everyone that was waiting.
+     */
+    void arrive(byte op, SocketChannel channel) throws IOException {
+        synchronized (this) {
+            try {
+                // Processes of the next round wait until the current one has left the barrier
+                while (op == ENTER && (barrier != null || releasing != null)) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                log.error(e.toString());
+                reply(channel, FAIL);
+                return;
+            }
+
+            if (op != (barrier == null ? ENTER : LEAVE) || (op == LEAVE && !members.contains(channel))) {
+                System.out.println(LocalTime.now() + ": Unexpected request " + (char) op + " while in round "
+                                   + (barrier == null ? (char) ENTER : (char) LEAVE));
+                reply(channel, FAIL);
+                return;
+            }
+
+            left.remove(channel);
+            waiting.add(channel);
+            System.out.println(LocalTime.now() + ": Local processes in round " + (char) op + ": " + waiting.size()
+                               + "/" + (op == ENTER ? expected : members.size()));
+            if (!startRound()) {
+                return;
+            }
+        }
+        release();
+    }
+
+    /**
+     * Forget a local process whose connection closed. A process that dies during a round is no longer waited
+     * for, otherwise the other local processes (and, through the barrier, every other host) would hang.
+     * Returns true if the round became complete. Must hold the monitor.
+     */
+    private boolean disconnected(SocketChannel channel) {
+        waiting.remove(channel);
+        if (releasing != null && releasing.remove(channel)) {
+            members.remove(channel);
+            return false;
+        }
+        if (!members.remove(channel) && !left.remove(channel)) {
+            // It connected for an enter round it will never arrive at
+            expected--;
+        }
+        System.out.println(LocalTime.now() + ": Local process disconnected, waiting for "
+                           + (barrier == null ? expected + " in round E" : members.size() + " in round L"));
+        return startRound();
+    }
+
+    /**
+     * Hand the waiting processes over to {@link #release()} if every local process expected in the round has
+     * arrived. The leave round completes even with no members left, so the host still leaves the barrier
+     * after all of its processes died. Must hold the monitor.
+     */
+    private boolean startRound() {
+        boolean complete = barrier == null ? !waiting.isEmpty() && waiting.size() >= expected
+                                           : waiting.size() >= members.size();
+        if (releasing != null || !complete) {
+            return false;
+        }
+        releasing = new ArrayList<>(waiting);
+        waiting.clear();
+        if (barrier == null) {
+            // From here on, disconnects count against the next enter round
+            expected = localProcesses;
+        }
+        return true;
+    }
+
+    /**
+     * Run the ZooKeeper operation of the started round and answer its processes. The operation blocks until
+     * the other hosts arrive, so it runs outside the monitor to keep handling arrivals and disconnects.
+     */
+    private void release() {
+        boolean next = true;
+        while (next) {
+            RestrictedBarrier current;
+            synchronized (this) {
+                current = barrier;
+            }
+            boolean entering = current == null;
+            boolean flag = false;
+            try {
+                if (entering) {
+                    // A fresh barrier per round, all of them sharing the same static ZooKeeper session. Each round
+                    // gets its own root, since the last leaver of the previous one may still be deleting its tree
+                    current = new RestrictedBarrier(address, root + "-" + round, subsetId, hosts);
+                    flag = current.enter();
+                } else {
+                    flag = current.leave();
+                }
+            } catch (KeeperException | InterruptedException e) {
+                log.error(e.toString());
+            }
+
+            synchronized (this) {
+                if (entering) {
+                    barrier = current;
+                    round++;
+                    members.addAll(releasing);
+                } else {
+                    barrier = null;
+                    members.clear();
+                    left.addAll(releasing);
+                    notifyAll();
+                }
+                for (var waiter : releasing) {
+                    try {
+                        reply(waiter, flag ? OK : FAIL);
+                    } catch (IOException e) {
+                        log.error(e.toString());
+                    }
+                }
+                releasing = null;
+                // Processes may have arrived or died while ZooKeeper was blocking
+                next = startRound();
+            }
+        }
+    }
+
+    private static void reply(SocketChannel channel, byte status) throws IOException {
+        channel.write(ByteBuffer.wrap(new byte[]{status}));
+    }
+
+    public static void main(String[] args) {
+        System.out.println("### SIDECAR DE BARREIRA ###");
+        if (args.length < 5) {
+            System.out.println("USO: java -jar barreira_sidecar.jar <IP:Porta> <nHosts> <grupo> <socket> <nProcessosLocais>");
+            System.exit(-1);
+        }
+
+        var sidecar = new BarrierSidecar(args[0], "/b1", args[2], Integer.parseInt(args[1]),
+                                         Integer.parseInt(args[4]), Path.of(args[3]));
+        try {
+            sidecar.serve();
+        } catch (IOException e) {
+            log.error(e.toString());
+            System.exit(-1);
+        }
+    }
+}
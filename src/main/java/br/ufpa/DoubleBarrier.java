@@ -25,10 +25,13 @@ public class DoubleBarrier extends SyncPrimitive {
         // Create barrier node
         if (zk != null) {
             try {
-                if (zk.exists(root, false) == null) {
-                    zk.create(root, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE,
-                              CreateMode.PERSISTENT);
+                // Every run reuses the root, so it is always persistent: a container could be collected between runs
+                if (exists(root, false) == null) {
+                    retry.run("create " + root, () -> zk.create(root, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                                                                CreateMode.PERSISTENT));
                 }
+            } catch (KeeperException.NodeExistsException ignored) {
+                // Created by another process, or by our own create before the connection was lost
             } catch (KeeperException e) {
                 log.error("Keeper exception when instantiating queue: " + e);
             } catch (InterruptedException e) {
@@ -46,10 +49,10 @@ public class DoubleBarrier extends SyncPrimitive {
 
     public boolean enter() throws KeeperException, InterruptedException {
         // Step 2: Set watch: exists(b + "/ready", true)
-        zk.exists(root + "/" + readyNode, true);
+        exists(root + "/" + readyNode, true);
 
         // Step 1 and 3: Create a name and child: create(n, EPHEMERAL) (the generated name is using sequential feature)
-        var znode = zk.create(root + "/" + name, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL);
+        var znode = createSequential(root + "/" + name, name, CreateMode.EPHEMERAL_SEQUENTIAL);
         System.out.println("Created: " + znode);
         var split = znode.split("/");
         name = split[split.length - 1];
@@ -58,17 +61,21 @@ public class DoubleBarrier extends SyncPrimitive {
             while (true) {
                 synchronized (mutex) {
                     // Step 4: L = getChildren(b, false)
-                    List<String> children = zk.getChildren(root, false);
+                    List<String> children = readChildren(root, false);
 
                     // Step 5: if fewer children in L than x, wait for watch event
                     if (children.size() < size) {
                         System.out.println(LocalTime.now() + ": Waiting for more processes to enter the barrier...");
-                        mutex.wait();
+                        waitForEvent();
                     } else {
                         // Step 6: else create(b + "/ready", REGULAR). Last process to join barrier creates the ready node
-                        if (zk.exists(root + "/" + readyNode, true) == null) {
-                            var readyZNode = zk.create(root + "/" + readyNode, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
-                            System.out.println("Created: " + readyZNode);
+                        if (exists(root + "/" + readyNode, true) == null) {
+                            try {
+                                var readyZNode = createMarker(root + "/" + readyNode);
+                                System.out.println("Created: " + readyZNode);
+                            } catch (KeeperException.NodeExistsException ignored) {
+                                // Another process that also saw all the children created it first
+                            }
                         }
                         return true;
                     }
@@ -86,7 +93,7 @@ public class DoubleBarrier extends SyncPrimitive {
         while (true) {
             synchronized (mutex) {
                 // Step 1: L = getChildren(b, false)
-                List<String> children = zk.getChildren(root, false);
+                List<String> children = readChildren(root, false);
                 System.out.println(LocalTime.now() + ": Remaining in Barrier: " + children + "\n");
                 children.remove(readyNode);
 
@@ -98,9 +105,9 @@ public class DoubleBarrier extends SyncPrimitive {
                 // Step 3: if p is only process node in L, delete(n) and exit
                 if (children.size() == 1) {
                     System.out.println("Deleting barrier node");
-                    zk.delete(root + "/" + name, -1);
+                    delete(root + "/" + name, -1);
                     // deleting the ready node guarantees that the next barrier will be created
-                    zk.delete(root + "/" + readyNode, -1);
+                    delete(root + "/" + readyNode, -1);
                     return true;
                 }
 
@@ -108,15 +115,15 @@ public class DoubleBarrier extends SyncPrimitive {
                 children.sort(String::compareTo);
                 if (children.getFirst().equals(name)) {
                     String highestNode = children.getLast();
-                    zk.exists(root + "/" + highestNode, true);
-                    mutex.wait();
+                    exists(root + "/" + highestNode, true);
+                    waitForEvent();
                 } else {
                     // Step 5: else delete(n) if still exists and wait on lowest process node in L
-                    zk.delete(root + "/" + name, -1);
+                    delete(root + "/" + name, -1);
                     System.out.println("Deleted: " + root + "/" + name);
                     String lowestNode = children.getFirst();
-                    zk.exists(root + "/" + lowestNode, true);
-                    mutex.wait();
+                    exists(root + "/" + lowestNode, true);
+                    waitForEvent();
                 }
             }
         }
@@ -0,0 +1,105 @@
+package br.ufpa;
+
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Collapses bursts of watch events into at most one wakeup. An event is dropped when a watching read of the
+ * same path is in flight, since that read returns a newer cversion that already includes the change. It is
+ * also dropped when the path is already marked dirty and the waiter has not consumed that wakeup yet. A pending
+ * children change is cleared when a later read of the path completes with a cversion past the last one seen.
+ * Only watching reads are tracked, since only they re-arm the watch that the next change fires.
+ * <p>
+ * Relies on ZooKeeper delivering async callbacks and watch events in order on the same event thread.
+ * All methods must be called with {@link SyncPrimitive#mutex} held.
+ */
+class EventCoalescer {
+    // Paths with a pending wakeup, and the type of the event that caused it
+    private final Map<String, Watcher.Event.EventType> dirty = new HashMap<>();
+    private final Map<String, Integer> readsInFlight = new HashMap<>();
+    private final Map<String, Integer> cversions = new HashMap<>();
+
+    private long received;
+    private long delivered;
+    private long coveredByRead;
+    private long alreadyPending;
+    private long coveredByCversion;
+    private long unchangedReads;
+
+    /**
+     * Register a watch event. Returns true if the waiters must be woken up.
+     */
+    boolean offer(WatchedEvent event) {
+        // Connection state changes always wake the waiters
+        if (event.getType() == Watcher.Event.EventType.None || event.getPath() == null) {
+            return true;
+        }
+
+        received++;
+        var path = event.getPath();
+        if (readsInFlight.getOrDefault(path, 0) > 0) {
+            coveredByRead++;
+            return false;
+        }
+        var pending = dirty.get(path);
+        if (pending != null) {
+            // Keep any other type, so the wakeup is not cleared as a mere children change
+            if (pending == Watcher.Event.EventType.NodeChildrenChanged) {
+                dirty.put(path, event.getType());
+            }
+            alreadyPending++;
+            return false;
+        }
+        dirty.put(path, event.getType());
+        delivered++;
+        return true;
+    }
+
+    void beginRead(String path) {
+        readsInFlight.merge(path, 1, Integer::sum);
+    }
+
+    void endRead(String path, Stat stat) {
+        readsInFlight.computeIfPresent(path, (p, n) -> n > 1 ? n - 1 : null);
+        if (stat != null) {
+            var previous = cversions.put(path, stat.getCversion());
+            if (previous != null && previous == stat.getCversion()) {
+                unchangedReads++;
+            } else if (dirty.get(path) == Watcher.Event.EventType.NodeChildrenChanged) {
+                // Events are delivered before the reply of a later read, so the newer cversion includes the change
+                dirty.remove(path);
+                coveredByCversion++;
+            }
+        }
+    }
+
+    /**
+     * Consume the pending wakeup, if any. Returns true if some event arrived since the last call.
+     */
+    boolean consume() {
+        if (dirty.isEmpty()) {
+            return false;
+        }
+        dirty.clear();
+        return true;
+    }
+
+    /**
+     * Fraction of the received watch events that did not cause a wakeup
+     */
+    double coalescingRatio() {
+        return received == 0 ? 0 : (double) (received - delivered) / received;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Watch events: received=%d, delivered=%d, covered by read=%d, already pending=%d, "
+                             + "covered by cversion=%d, coalescing ratio=%.2f, reads with unchanged cversion=%d",
+                             received, delivered, coveredByRead, alreadyPending, coveredByCversion, coalescingRatio(),
+                             unchangedReads);
+    }
+}
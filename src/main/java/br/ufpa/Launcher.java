@@ -0,0 +1,162 @@
+package br.ufpa;
+
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.server.ServerConfig;
+import org.apache.zookeeper.server.ZooKeeperServerMain;
+import org.apache.zookeeper.server.admin.AdminServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import static br.ufpa.SyncPrimitive.log;
+
+/**
+ * Single entry point for every barrier type, so that all participants share one jar and one
+ * class-data-sharing archive instead of cold-starting a separate jar-with-dependencies each.
+ */
+public final class Launcher {
+    private static final Map<String, Consumer<String[]>> COMMANDS = new LinkedHashMap<>();
+    // Data directory of the server started by the training run, if any
+    private static Path embeddedDataDir;
+
+    static {
+        COMMANDS.put("restrita", RestrictedBarrier::main);
+        COMMANDS.put("original", OriginalBarrier::main);
+        COMMANDS.put("dupla", DoubleBarrier::main);
+        COMMANDS.put("aninhada", NestedRestrictedBarrier::main);
+        COMMANDS.put("simples", SimpleBarrier::main);
+        COMMANDS.put("sidecar", BarrierSidecar::main);
+        COMMANDS.put("sidecar-cliente", SidecarBarrier::main);
+        COMMANDS.put("local", MappedFileBarrier::main);
+        COMMANDS.put("benchmark", BarrierBenchmark::main);
+        COMMANDS.put("analise", SpanAnalyzer::main);
+        COMMANDS.put("treino", Launcher::train);
+    }
+
+    private Launcher() {
+    }
+
+    /**
+     * Training run used at build time to record the classes of a typical participant in the CDS archive.
+     * It goes through one single-process round of the ZooKeeper and of the local barrier, without any work.
+     * Without an address, the round runs against a ZooKeeper server embedded in this JVM, so the build does not
+     * depend on a running ensemble. Exits with an error if the round fails, so no partial archive is shipped.
+     */
+    static void train(String[] args) {
+        String address;
+        try {
+            address = args.length > 0 ? args[0] : startEmbeddedServer();
+        } catch (IOException e) {
+            log.error("Could not start the embedded ZooKeeper: " + e);
+            System.exit(1);
+            return;
+        }
+        if (!reachable(address)) {
+            log.error("ZooKeeper " + address + " is not reachable");
+            System.exit(1);
+        }
+
+        // A root of its own, so nothing left behind by an aborted run gets in the way
+        var barrier = new RestrictedBarrier(address, "/cds-treino-" + UUID.randomUUID(), "treino", 1);
+        boolean trained = false;
+        try {
+            trained = barrier.enter() && barrier.leave();
+        } catch (KeeperException | InterruptedException e) {
+            log.error(e.toString());
+        }
+        barrier.close();
+        if (!trained) {
+            log.error("Training round on " + address + " failed");
+            System.exit(1);
+        }
+
+        try {
+            var file = Files.createTempFile("barreira", ".map");
+            var local = new MappedFileBarrier(file, 1);
+            local.enter();
+            local.leave();
+            local.close();
+            Files.delete(file);
+            if (embeddedDataDir != null) {
+                try (var paths = Files.walk(embeddedDataDir)) {
+                    paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+                }
+            }
+        } catch (IOException e) {
+            log.error(e.toString());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Start a standalone ZooKeeper server on a free port and a temporary data directory. It runs on a daemon
+     * thread and goes away with the JVM.
+     */
+    private static String startEmbeddedServer() throws IOException {
+        int port;
+        try (var socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        embeddedDataDir = Files.createTempDirectory("cds-zookeeper");
+        System.setProperty("zookeeper.admin.enableServer", "false");
+        var config = new ServerConfig();
+        config.parse(new String[]{String.valueOf(port), embeddedDataDir.toString()});
+
+        var server = new Thread(() -> {
+            try {
+                new ZooKeeperServerMain().runFromConfig(config);
+            } catch (IOException | AdminServer.AdminServerException e) {
+                log.error(e.toString());
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+
+        var address = "127.0.0.1:" + port;
+        for (int i = 0; i < 100 && !reachable(address); i++) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                log.error(e.toString());
+            }
+        }
+        return address;
+    }
+
+    /**
+     * Whether the first server of the connection string accepts TCP connections
+     */
+    private static boolean reachable(String address) {
+        var server = address.split(",")[0];
+        int colon = server.lastIndexOf(':');
+        var host = colon < 0 ? server : server.substring(0, colon);
+        int port = colon < 0 ? 2181 : Integer.parseInt(server.substring(colon + 1).split("/")[0]);
+        try (var socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), 2000);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1 || !COMMANDS.containsKey(args[0])) {
+            System.out.println("USO: java -jar barreira.jar <barreira> <argumentos...>");
+            System.out.println("Barreiras: " + String.join(", ", COMMANDS.keySet()));
+            System.exit(-1);
+        }
+
+        COMMANDS.get(args[0]).accept(Arrays.copyOfRange(args, 1, args.length));
+    }
+}
@@ -0,0 +1,150 @@
+package br.ufpa;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+import static br.ufpa.SyncPrimitive.log;
+
+/**
+ * Barrier for processes running on the same machine. Instead of znodes, the parties share a small
+ * memory-mapped file holding an arrival counter and a generation word, both updated atomically through
+ * a {@link VarHandle}. The last process to arrive resets the counter and bumps the generation, which
+ * releases everyone spinning (and then parking) on it.
+ * <p>
+ * The file outlives the processes, so a process killed while waiting leaves its arrival behind. Every process
+ * holds a shared lock on the file while using it, and the first one to open it when nobody holds that lock
+ * starts a new job: it resets the counter and records the barrier size, which later processes must match.
+ */
+public class MappedFileBarrier implements IBarrier {
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    // Counter and generation live on different cache lines so arrivals don't disturb the waiters
+    private static final int COUNT = 0;
+    private static final int GENERATION = 64;
+    // Header of the current job, written only when it starts
+    private static final int SIZE = 128;
+    private static final int EPOCH = 136;
+    private static final int FILE_SIZE = 192;
+    // Lock regions past the mapped data: INIT_LOCK serializes opening, ATTACHED_LOCK is shared by the open barriers
+    private static final long INIT_LOCK = FILE_SIZE;
+    private static final long ATTACHED_LOCK = FILE_SIZE + 1;
+    // Spinning only pays off when the process we wait for can run at the same time
+    private static final int SPIN_LIMIT = Runtime.getRuntime().availableProcessors() > 1 ? 10_000 : 0;
+    private static final long PARK_NANOS = 50_000;
+
+    final int size;
+    final FileChannel channel;
+    final MappedByteBuffer buffer;
+    // Number of the job this barrier joined
+    final long epoch;
+
+    MappedFileBarrier(Path file, int size) throws IOException {
+        this.size = size;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // Mapping beyond the end grows the file with zeros
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+
+        FileLock attached = null;
+        long jobSize;
+        var init = channel.lock(INIT_LOCK, 1, false);
+        try {
+            var exclusive = channel.tryLock(ATTACHED_LOCK, 1, false);
+            if (exclusive != null) {
+                // Nobody else has the file open, so anything left in it belongs to an earlier job
+                LONG.setRelease(buffer, COUNT, 0L);
+                LONG.setRelease(buffer, SIZE, (long) size);
+                LONG.getAndAdd(buffer, EPOCH, 1L);
+                exclusive.release();
+            }
+            jobSize = (long) LONG.getAcquire(buffer, SIZE);
+            if (jobSize == size) {
+                attached = channel.lock(ATTACHED_LOCK, 1, true);
+            }
+        } finally {
+            init.release();
+        }
+        if (attached == null) {
+            channel.close();
+            throw new IOException(file + " is in use by a barrier of " + jobSize + " processes, not " + size);
+        }
+        this.epoch = (long) LONG.getAcquire(buffer, EPOCH);
+    }
+
+    public boolean enter() {
+        return await();
+    }
+
+    public boolean leave() {
+        return await();
+    }
+
+    /**
+     * Arrive at the barrier and block until all processes of the current generation have arrived
+     */
+    private boolean await() {
+        // The generation can only move after our own arrival, so reading it first is safe
+        long generation = (long) LONG.getAcquire(buffer, GENERATION);
+        long arrived = (long) LONG.getAndAdd(buffer, COUNT, 1L) + 1;
+        if (arrived == size) {
+            LONG.setRelease(buffer, COUNT, 0L);
+            LONG.getAndAdd(buffer, GENERATION, 1L);
+            return true;
+        }
+
+        int spins = 0;
+        while ((long) LONG.getAcquire(buffer, GENERATION) == generation) {
+            if (spins < SPIN_LIMIT) {
+                spins++;
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        }
+        return true;
+    }
+
+    public void close() {
+        try {
+            // Also releases the attached lock, so the next job can reset the file once every process closed it
+            channel.close();
+        } catch (IOException e) {
+            log.error(e.toString());
+        }
+    }
+
+    public static void main(String[] args) {
+        System.out.println("### BARREIRA LOCAL (arquivo mapeado) ###");
+        if (args.length < 2) {
+            System.out.println("USO: java -jar barreira_local.jar <arquivo> <nProcessos>");
+            System.exit(-1);
+        }
+
+        int size = Integer.parseInt(args[1]);
+        MappedFileBarrier barrier = null;
+        try {
+            barrier = new MappedFileBarrier(Path.of(args[0]), size);
+        } catch (IOException e) {
+            log.error(e.toString());
+            System.exit(-1);
+        }
+
+        System.out.println("Job " + barrier.epoch + " of " + args[0]);
+        boolean flag = barrier.enter();
+        System.out.println("ALL PROCESSES (" + size + ") JOINED BARRIER");
+        if (!flag) System.out.println("Error when entering the barrier");
+
+        Worker.doWork();
+
+        flag = barrier.leave();
+        if (!flag) System.out.println("Error when leaving the barrier");
+        System.out.println("Left barrier");
+        barrier.close();
+    }
+}
@@ -2,47 +2,75 @@ package br.ufpa;
 
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
-import org.apache.zookeeper.ZooDefs;
 
+import org.apache.zookeeper.data.Stat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalTime;
+import java.util.Arrays;
 import java.util.List;
 
 public class NestedRestrictedBarrier extends SyncPrimitive {
+    // Data the last arriver writes on a level node when it releases the level
+    private static final byte[] RELEASED = "released".getBytes(StandardCharsets.UTF_8);
     int size;
     String name;
+    final String subsetId;
     final String subsetPath;
     final String readyNodePath;
     String nodePath;
     List<String> barrierLevels;
+    // Stable identity of this participant, kept across restarts
+    final String participantId;
+    // Only a participant started with an explicit id can resume: the host name is shared by local processes
+    final boolean resumable;
+    final Path checkpointFile;
+    // Set when a checkpoint of a previous run of this participant was found
+    boolean resumed;
+    long subsetCzxid;
+    int completedLevels;
+    boolean staleNodesRemoved;
 
     /**
      * Barrier constructor
      */
-    NestedRestrictedBarrier(String address, String root, String subsetId, int size, List<String> barrierLevels) {
+    NestedRestrictedBarrier(String address, String root, String subsetId, int size, List<String> barrierLevels,
+                            String participantId) {
         super(address);
         this.root = root;
         this.size = size;
+        this.subsetId = subsetId;
         this.subsetPath = root + "/" + subsetId;
         this.readyNodePath = this.subsetPath+ "/ready-";
         this.barrierLevels = barrierLevels;
+        this.resumable = participantId != null;
+        this.participantId = resumable ? participantId : hostName();
+        this.name = this.participantId;
+        this.checkpointFile = resumable
+                ? Path.of(System.getProperty("java.io.tmpdir"), "barreira_aninhada-" + subsetId + "-" + participantId + ".ckpt")
+                : null;
 
         // Create barrier node
         if (zk != null) {
             try {
-                if (zk.exists(root, false) == null) {
-                    zk.create(root, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE,
-                              CreateMode.PERSISTENT);
-                }
-                if (zk.exists(subsetPath, false) == null) {
-                    zk.create(subsetPath, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE,
-                              CreateMode.PERSISTENT);
-                }
-                for (String level : barrierLevels) {
-                    if (zk.exists(subsetPath + "/" + level, false) == null) {
-                        zk.create(subsetPath + "/" + level, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE,
-                                  CreateMode.PERSISTENT);
+                readCheckpoint();
+                // A restarted participant must not recreate levels its peers have already completed and deleted
+                if (!resumed) {
+                    createParent(root);
+                    createParent(subsetPath);
+                    for (String level : barrierLevels) {
+                        createParent(subsetPath + "/" + level);
+                    }
+                    // Written to the checkpoint once the first level is completed
+                    var stat = exists(subsetPath, false);
+                    if (stat != null) {
+                        subsetCzxid = stat.getCzxid();
                     }
                 }
             } catch (KeeperException e) {
@@ -51,57 +79,216 @@ public class NestedRestrictedBarrier extends SyncPrimitive {
                 log.error("Interrupted exception: " + e);
             }
         }
+    }
 
-        // My node name
+    NestedRestrictedBarrier(String address, String root, String subsetId, int size, List<String> barrierLevels) {
+        this(address, root, subsetId, size, barrierLevels, null);
+    }
+
+    private static String hostName() {
         try {
-            this.name = InetAddress.getLocalHost().getCanonicalHostName();
+            return InetAddress.getLocalHost().getCanonicalHostName();
         } catch (UnknownHostException e) {
             log.error(e.toString());
+            return "localhost";
+        }
+    }
+
+    /**
+     * Load the progress of a previous run of this participant. The checkpoint holds the creation zxid of the
+     * subset node, so one left behind by an older job (whose subset was removed or recreated since) is discarded.
+     */
+    private void readCheckpoint() throws KeeperException, InterruptedException {
+        if (!resumable || !Files.exists(checkpointFile)) {
+            return;
+        }
+        try {
+            var fields = Files.readString(checkpointFile).trim().split(" ");
+            long czxid = Long.parseLong(fields[0]);
+            int completed = Integer.parseInt(fields[1]);
+            var stat = exists(subsetPath, false);
+            if (stat == null || stat.getCzxid() != czxid) {
+                System.out.println("Discarding checkpoint of an older barrier: " + checkpointFile);
+                Files.delete(checkpointFile);
+                return;
+            }
+            this.resumed = true;
+            this.subsetCzxid = czxid;
+            this.completedLevels = completed;
+            System.out.println("Resuming from checkpoint " + checkpointFile + ": " + completed + " level(s) completed");
+        } catch (IOException | RuntimeException e) {
+            log.error("Invalid checkpoint " + checkpointFile + ": " + e);
+        }
+    }
+
+    private void writeCheckpoint() {
+        try {
+            var tmp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+            Files.writeString(tmp, subsetCzxid + " " + completedLevels + "\n");
+            Files.move(tmp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Could not write checkpoint " + checkpointFile + ": " + e);
         }
     }
 
+    /**
+     * Levels this participant still has to go through
+     */
+    public List<String> remainingLevels() {
+        return barrierLevels.subList(Math.min(completedLevels, barrierLevels.size()), barrierLevels.size());
+    }
+
+    /**
+     * Record that the given level was left, so a restart resumes at the next one
+     */
+    public void checkpoint(String barrierLvl) {
+        completedLevels = barrierLevels.indexOf(barrierLvl) + 1;
+        if (!resumable) {
+            return;
+        }
+        if (completedLevels == barrierLevels.size()) {
+            try {
+                Files.deleteIfExists(checkpointFile);
+            } catch (IOException e) {
+                log.error(e.toString());
+            }
+        } else {
+            writeCheckpoint();
+        }
+    }
+
+    /**
+     * Identifies this barrier instance in the spans. Resumed participants keep the zxid from their checkpoint.
+     */
+    private String runId() {
+        return subsetPath + "@" + Long.toHexString(subsetCzxid);
+    }
+
     public boolean enter(String barrierLvl) throws KeeperException, InterruptedException {
+        long arrival = SpanRecorder.now();
+        try {
+            return enterLevel(barrierLvl);
+        } finally {
+            SpanRecorder.record("aninhada", runId(), subsetId, barrierLvl, "enter", participantId, name, arrival);
+        }
+    }
+
+    public boolean leave(String barrierLvl) throws KeeperException, InterruptedException {
+        long arrival = SpanRecorder.now();
+        try {
+            return leaveLevel(barrierLvl);
+        } finally {
+            SpanRecorder.record("aninhada", runId(), subsetId, barrierLvl, "leave", participantId, name, arrival);
+        }
+    }
+
+    private boolean enterLevel(String barrierLvl) throws KeeperException, InterruptedException {
         var ready = this.readyNodePath + barrierLvl;
         var levelPath = subsetPath + "/" + barrierLvl;
+        // No node in this level yet
+        this.name = participantId;
 
         // Step 2: Set watch: exists(b + "/ready", true)
-        zk.exists(ready, true);
+        Stat readyStat = exists(ready, true);
 
         // Step 1 and 3: Create a name and child: create(n, EPHEMERAL) (the generated name is using sequential feature)
-        var znode = zk.create(levelPath + "/" + name, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL);
+        String znode;
+        try {
+            znode = createSequential(levelPath + "/" + participantId + "-", participantId, CreateMode.EPHEMERAL_SEQUENTIAL);
+        } catch (KeeperException.NoNodeException e) {
+            if (!resumed) {
+                throw e;
+            }
+            // Peers delete a level once everyone left it, so a missing level was completed while we were down
+            System.out.println("Barrier level \"" + barrierLvl + "\" was already completed by the other processes");
+            return true;
+        }
         System.out.println("Created: "+znode);
         var split = znode.split("/");
         this.name = split[split.length-1];
         this.nodePath = levelPath + "/" + name;
+        // A previous run can only have left nodes in the level this run starts at
+        if (resumable && !staleNodesRemoved) {
+            // Only after our new node exists, so peers waiting on the old one in leave() keep waiting for us
+            removeStaleNodes(levelPath);
+            staleNodesRemoved = true;
+        }
+
+        // Late arrival after a restart: the level was already released, and our node makes peers wait for us in leave()
+        if (resumed && (readyStat != null || isReleased(levelPath))) {
+            System.out.println("Barrier level \"" + barrierLvl + "\" already released, rejoining it");
+            return true;
+        }
 
         try {
             while (true) {
                 synchronized (mutex) {
                     // Step 4: L = getChildren(b, false)
-                    List<String> children = zk.getChildren(levelPath, false);
+                    List<String> children = readChildren(levelPath, false);
 
                     // Step 5: if fewer children in L than x, wait for watch event
                     if (children.size() < size) {
                         System.out.println(LocalTime.now() + ": Waiting for more processes to enter the barrier...");
-                        mutex.wait();
+                        waitForEvent();
                     } else {
                         // Step 6: else create(b + "/ready", REGULAR). Last process to join barrier creates the ready node
-                        var readyZNode = zk.create(ready, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+                        var readyZNode = createMarker(ready);
                         System.out.println("Created: "+readyZNode);
+                        // ready may be a TTL node that expires while the level is still in use, so restarted
+                        // participants look for the release on the level node, which lives as long as the level
+                        retry.run("setData " + levelPath, () -> zk.setData(levelPath, RELEASED, -1));
                         return true;
                     }
                 }
             }
+        } catch (KeeperException.NodeExistsException e) {
+            // Another participant saw the full level first and created ready: the level is crossed all the same
+            return true;
         } catch (KeeperException | InterruptedException e) {
-            if (!(e instanceof KeeperException.NodeExistsException)) {
-                log.error(e.toString());
-            }
+            log.error(e.toString());
         }
 
         return false;
     }
 
-    public boolean leave(String barrierLvl) throws KeeperException, InterruptedException {
+    /**
+     * Whether the last arriver already released the level
+     */
+    private boolean isReleased(String levelPath) throws KeeperException, InterruptedException {
+        try {
+            return Arrays.equals(retry.run("getData " + levelPath, () -> zk.getData(levelPath, false, null)), RELEASED);
+        } catch (KeeperException.NoNodeException e) {
+            // Deleted by the last leaver, so it was released long ago
+            return true;
+        }
+    }
+
+    /**
+     * Delete nodes left in the level by the session of a previous run of this participant, which may not have
+     * expired yet. Otherwise the same participant would be counted twice. A node is only stale if its data
+     * names this participant and another session owns it, so a shared name prefix is not enough.
+     */
+    private void removeStaleNodes(String levelPath) throws KeeperException, InterruptedException {
+        for (String child : readChildren(levelPath, false)) {
+            if (!child.startsWith(participantId + "-") || child.equals(name)) {
+                continue;
+            }
+            var path = levelPath + "/" + child;
+            try {
+                var stat = new Stat();
+                var data = new String(retry.run("getData " + path, () -> zk.getData(path, false, stat)),
+                                      StandardCharsets.UTF_8);
+                if (data.startsWith(participantId + " ") && stat.getEphemeralOwner() != zk.getSessionId()) {
+                    delete(path, -1);
+                    System.out.println("Deleted stale node: " + path);
+                }
+            } catch (KeeperException.NoNodeException ignored) {
+                // Its session expired in the meantime
+            }
+        }
+    }
+
+    private boolean leaveLevel(String barrierLvl) throws KeeperException, InterruptedException {
         var ready = this.readyNodePath + barrierLvl;
         var levelPath = subsetPath + "/" + barrierLvl;
 
@@ -109,7 +296,13 @@ public class NestedRestrictedBarrier extends SyncPrimitive {
         while (true) {
             synchronized (mutex) {
                 // Step 1: L = getChildren(b, false)
-                List<String> children = zk.getChildren(levelPath, false);
+                List<String> children;
+                try {
+                    children = readChildren(levelPath, false);
+                } catch (KeeperException.NoNodeException e) {
+                    // The last process already removed the level (or it was completed before a restart)
+                    return true;
+                }
                 System.out.println(LocalTime.now() + ": Remaining in Barrier: " +
                                            barrierLvl + ": "+children + "\n");
                 System.out.println("Children: "+children);
@@ -123,17 +316,9 @@ public class NestedRestrictedBarrier extends SyncPrimitive {
                 // Step 3: if p is only process node in L, delete(n) and exit
                 if (children.size() == 1 && children.contains(name)) {
                     System.out.println("Last process remaining...");
-                    zk.delete(nodePath, 0);
-                    System.out.println("Deleted: " + nodePath);
-                    zk.delete(ready, 0);
-                    System.out.println("Deleted: " + ready);
-                    zk.delete(levelPath, 0);
-                    System.out.println("Deleted: " + levelPath);
+                    deleteNodes(nodePath, ready, levelPath);
                     if (barrierLevels.getLast().equals(barrierLvl)) {
-                        zk.delete(subsetPath, 0);
-                        System.out.println("Deleted: " + subsetPath);
-                        zk.delete(root, 0);
-                        System.out.println("Deleted: " + root);
+                        deleteNodes(subsetPath, root);
                     }
                     return true;
                 }
@@ -142,17 +327,20 @@ public class NestedRestrictedBarrier extends SyncPrimitive {
                 children.sort(String::compareTo);
                 if (children.getFirst().equals(name)) {
                     String highestNode = children.getLast();
-                    zk.exists(levelPath+ "/"+ highestNode, true);
-                    mutex.wait();
+                    // The node may be gone already, and then the watch would only fire on its re-creation
+                    if (exists(levelPath+ "/"+ highestNode, true) != null) {
+                        waitForEvent();
+                    }
                 } else {
                     // Step 5: else delete(n) if still exists and wait on lowest process node in L
-                    if (zk.exists(nodePath, false) != null) {
-                        zk.delete(nodePath, 0);
+                    if (exists(nodePath, false) != null) {
+                        delete(nodePath, 0);
                         System.out.println("Deleted: " + nodePath);
                     }
                     String lowestNode = children.getFirst();
-                    zk.exists(levelPath + "/" +lowestNode, true);
-                    mutex.wait();
+                    if (exists(levelPath + "/" +lowestNode, true) != null) {
+                        waitForEvent();
+                    }
                 }
             }
         }
@@ -161,7 +349,7 @@ public class NestedRestrictedBarrier extends SyncPrimitive {
     public static void main(String[] args) {
         System.out.println("### BARREIRA ANINHADA ###");
         if (args.length < 3) {
-            System.out.println("USO: java -jar barreira_aninhada.jar <IP:Porta> <nProcessos> <grupo>");
+            System.out.println("USO: java -jar barreira_aninhada.jar <IP:Porta> <nProcessos> <grupo> [idParticipante]");
             System.exit(-1);
         }
 
@@ -169,10 +357,13 @@ public class NestedRestrictedBarrier extends SyncPrimitive {
         int size = Integer.parseInt(args[1]);
         var subsetId = args[2];
         var barrierLevels = List.of("level1", "level2", "level3"); // Example barrier levels
-        var barrier = new NestedRestrictedBarrier(root,  "/b1", subsetId, size, barrierLevels);
+        // Only an explicit id is checkpointed: with more than one process per host, give each one its own
+        var barrier = args.length > 3
+                ? new NestedRestrictedBarrier(root, "/b1", subsetId, size, barrierLevels, args[3])
+                : new NestedRestrictedBarrier(root, "/b1", subsetId, size, barrierLevels);
 
         try {
-            for (String level : barrierLevels) {
+            for (String level : barrier.remainingLevels()) {
                 // Enter the barrier level
                 boolean flag = barrier.enter(level);
                 System.out.println("ALL PROCESSES (" + size + ") JOINED BARRIER LEVEL \"" + level + "\"");
@@ -185,6 +376,7 @@ public class NestedRestrictedBarrier extends SyncPrimitive {
                 // Leave the barrier level
                 flag = barrier.leave(level);
                 if (!flag) System.out.println("Error when leaving the barrier level " + level);
+                barrier.checkpoint(level);
                 System.out.println("Left barrier level \"" + level+"\"\n");
                 System.out.println("####################");
             }
@@ -3,7 +3,6 @@ package br.ufpa;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.ZooDefs;
-import org.apache.zookeeper.data.Stat;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
@@ -22,11 +21,13 @@ public class OriginalBarrier extends SyncPrimitive {
         // Create barrier node
         if (zk != null) {
             try {
-                Stat s = zk.exists(root, false);
-                if (s == null) {
-                    zk.create(root, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE,
-                              CreateMode.PERSISTENT);
+                // Every run reuses the root, so it is always persistent: a container could be collected between runs
+                if (exists(root, false) == null) {
+                    retry.run("create " + root, () -> zk.create(root, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                                                                CreateMode.PERSISTENT));
                 }
+            } catch (KeeperException.NodeExistsException ignored) {
+                // Created by another process, or by our own create before the connection was lost
             } catch (KeeperException e) {
                 log.error("Keeper exception when instantiating queue: " + e);
             } catch (InterruptedException e) {
@@ -46,8 +47,7 @@ public class OriginalBarrier extends SyncPrimitive {
      * Join barrier. The thread will block here until all processes join the barrier
      */
     boolean enter() throws KeeperException, InterruptedException {
-        var createdNode = zk.create(root + "/" + name, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE,
-                                    CreateMode.EPHEMERAL_SEQUENTIAL);
+        var createdNode = createSequential(root + "/" + name, name, CreateMode.EPHEMERAL_SEQUENTIAL);
         var split = createdNode.split("/");
         name = split[split.length - 1];
         System.out.println("Created: " + createdNode);
@@ -56,10 +56,10 @@ public class OriginalBarrier extends SyncPrimitive {
             // Between the znode creation and getChildren, one of the nodes may already be deleted,
             // so list.size() will always be less than size.
             synchronized (mutex) {
-                List<String> list = zk.getChildren(root, true);
+                List<String> list = readChildren(root, true);
                 if (list.size() < size) {
                     System.out.println(LocalTime.now() + ": Waiting to enter the barrier...");
-                    mutex.wait();
+                    waitForEvent();
                 } else {
                     return true;
                 }
@@ -71,16 +71,16 @@ public class OriginalBarrier extends SyncPrimitive {
      * Wait until all reach barrier
      */
     boolean leave() throws KeeperException, InterruptedException {
-        zk.delete(root + "/" + name, 0);
+        delete(root + "/" + name, 0);
         System.out.println("Deleted: " + root + "/" + name);
         System.out.println(LocalTime.now() + ": Waiting to leave the barrier");
         while (true) {
             synchronized (mutex) {
-                List<String> list = zk.getChildren(root, true);
+                List<String> list = readChildren(root, true);
                 System.out.println(LocalTime.now() + ": Remaining in Barrier: " + list + "\n");
 
                 if (!list.isEmpty()) {
-                    mutex.wait();
+                    waitForEvent();
                 } else {
                     return true;
                 }
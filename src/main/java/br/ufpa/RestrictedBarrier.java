@@ -2,7 +2,6 @@ package br.ufpa;
 
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
-import org.apache.zookeeper.ZooDefs;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
@@ -12,9 +11,14 @@ import java.util.List;
 public class RestrictedBarrier extends SyncPrimitive implements IBarrier {
     int size;
     String name;
+    // Host name, which stays the same across rounds unlike the node name
+    String participantId;
+    final String subsetId;
     final String subsetPath;
     final String readyNodePath;
     String nodePath;
+    // Identifies this barrier instance in the spans: the subset path and the creation zxid of its node
+    String runId;
 
     /**
      * Barrier constructor
@@ -23,20 +27,16 @@ public class RestrictedBarrier extends SyncPrimitive implements IBarrier {
         super(address);
         this.root = root;
         this.size = size;
+        this.subsetId = subsetId;
         this.subsetPath = root + "/" + subsetId;
         this.readyNodePath = this.subsetPath+ "/ready";
 
         // Create barrier node
         if (zk != null) {
             try {
-                if (zk.exists(root, false) == null) {
-                    zk.create(root, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE,
-                              CreateMode.PERSISTENT);
-                }
-                if (zk.exists(subsetPath, false) == null) {
-                    zk.create(subsetPath, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE,
-                              CreateMode.PERSISTENT);
-                }
+                createParent(root);
+                createParent(subsetPath);
+                updateRunId();
             } catch (KeeperException e) {
                 log.error("Keeper exception when instantiating queue: "+ e);
             } catch (InterruptedException e) {
@@ -50,15 +50,51 @@ public class RestrictedBarrier extends SyncPrimitive implements IBarrier {
         } catch (UnknownHostException e) {
             log.error(e.toString());
         }
+        this.participantId = name;
         this.nodePath = subsetPath + "/" + name;
     }
 
+    private void updateRunId() throws KeeperException, InterruptedException {
+        var stat = exists(subsetPath, false);
+        runId = subsetPath + "@" + (stat != null ? Long.toHexString(stat.getCzxid()) : "-");
+    }
+
     public boolean enter() throws KeeperException, InterruptedException {
+        long arrival = SpanRecorder.now();
+        try {
+            return enterBarrier();
+        } finally {
+            SpanRecorder.record("restrita", runId, subsetId, "-", "enter", participantId, name, arrival);
+        }
+    }
+
+    public boolean leave() throws KeeperException, InterruptedException {
+        long arrival = SpanRecorder.now();
+        try {
+            return leaveBarrier();
+        } finally {
+            SpanRecorder.record("restrita", runId, subsetId, "-", "leave", participantId, name, arrival);
+        }
+    }
+
+    private boolean enterBarrier() throws KeeperException, InterruptedException {
         // Step 2: Set watch: exists(b + "/ready", true)
-        zk.exists(this.readyNodePath, true);
+        exists(this.readyNodePath, true);
 
         // Step 1 and 3: Create a name and child: create(n, EPHEMERAL) (the generated name is using sequential feature)
-        var znode = zk.create(nodePath, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL);
+        String znode;
+        try {
+            znode = createSequential(nodePath, name, CreateMode.EPHEMERAL_SEQUENTIAL);
+        } catch (KeeperException.NoNodeException e) {
+            if (!serverCleanup) {
+                throw e;
+            }
+            // The server may have collected the empty container since the constructor ran
+            createParent(root);
+            createParent(subsetPath);
+            updateRunId();
+            znode = createSequential(nodePath, name, CreateMode.EPHEMERAL_SEQUENTIAL);
+        }
         System.out.println("Created: "+znode);
         var split = znode.split("/");
         this.name = split[split.length-1];
@@ -68,36 +104,43 @@ public class RestrictedBarrier extends SyncPrimitive implements IBarrier {
             while (true) {
                 synchronized (mutex) {
                     // Step 4: L = getChildren(b, false)
-                    List<String> children = zk.getChildren(subsetPath, false);
+                    List<String> children = readChildren(subsetPath, false);
 
                     // Step 5: if fewer children in L than x, wait for watch event
                     if (children.size() < size) {
                         System.out.println(LocalTime.now() + ": Waiting for more processes to enter the barrier...");
-                        mutex.wait();
+                        waitForEvent();
                     } else {
                         // Step 6: else create(b + "/ready", REGULAR). Last process to join barrier creates the ready node
-                        var readyZNode = zk.create(readyNodePath, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+                        var readyZNode = createMarker(readyNodePath);
                         System.out.println("Created: "+readyZNode);
 
                         return true;
                     }
                 }
             }
+        } catch (KeeperException.NodeExistsException e) {
+            // Another participant saw the full barrier first and created ready: the barrier is crossed all the same
+            return true;
         } catch (KeeperException | InterruptedException e) {
-            if (!(e instanceof KeeperException.NodeExistsException)) {
-                log.error(e.toString());
-            }
+            log.error(e.toString());
         }
 
         return false;
     }
 
-    public boolean leave() throws KeeperException, InterruptedException {
+    private boolean leaveBarrier() throws KeeperException, InterruptedException {
         System.out.println(LocalTime.now()+": Waiting to leave the barrier");
         while (true) {
             synchronized (mutex) {
                 // Step 1: L = getChildren(b, false)
-                List<String> children = zk.getChildren(subsetPath, false);
+                List<String> children;
+                try {
+                    children = readChildren(subsetPath, false);
+                } catch (KeeperException.NoNodeException e) {
+                    // The last process already removed the barrier
+                    return true;
+                }
                 System.out.println(LocalTime.now() + ": Remaining in Barrier: " + children + "\n");
                 children.remove("ready");
 
@@ -107,16 +150,9 @@ public class RestrictedBarrier extends SyncPrimitive implements IBarrier {
                 }
 
                 // Step 3: if p is only process node in L, delete(n) and exit
-                if (children.size() == 1) {
+                if (children.size() == 1 && children.contains(name)) {
                     System.out.println("Last process remaining...");
-                    zk.delete(nodePath, -1);
-                    System.out.println("Deleted: " + nodePath);
-                    zk.delete(readyNodePath, -1);
-                    System.out.println("Deleted: " + readyNodePath);
-                    zk.delete(subsetPath, -1);
-                    System.out.println("Deleted: " + subsetPath);
-                    zk.delete(root, -1);
-                    System.out.println("Deleted: " + root);
+                    deleteNodes(nodePath, readyNodePath, subsetPath, root);
                     return true;
                 }
 
@@ -124,15 +160,20 @@ public class RestrictedBarrier extends SyncPrimitive implements IBarrier {
                 children.sort(String::compareTo);
                 if (children.getFirst().equals(name)) {
                     String highestNode = children.getLast();
-                    zk.exists(subsetPath+ "/"+ highestNode, true);
-                    mutex.wait();
+                    // The node may be gone already, and then the watch would only fire on its re-creation
+                    if (exists(subsetPath+ "/"+ highestNode, true) != null) {
+                        waitForEvent();
+                    }
                 } else {
                     // Step 5: else delete(n) if still exists and wait on lowest process node in L
-                    zk.delete(nodePath, -1);
-                    System.out.println("Deleted: " + nodePath);
+                    if (exists(nodePath, false) != null) {
+                        delete(nodePath, -1);
+                        System.out.println("Deleted: " + nodePath);
+                    }
                     String lowestNode = children.getFirst();
-                    zk.exists(subsetPath + "/"+lowestNode, true);
-                    mutex.wait();
+                    if (exists(subsetPath + "/"+lowestNode, true) != null) {
+                        waitForEvent();
+                    }
                 }
             }
         }
@@ -0,0 +1,128 @@
+package br.ufpa;
+
+import org.apache.zookeeper.KeeperException;
+
+import java.time.LocalTime;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retries ZooKeeper operations that failed because the connection was lost, e.g. while the ensemble elects a
+ * new leader. Waits grow exponentially with decorrelated jitter, sleep = min(cap, random(base, 3 * previous)),
+ * so participants that failed at the same moment do not come back at the same moment. Session expiration is
+ * not retried: the ephemeral nodes are gone and the caller has to start over.
+ * <p>
+ * Also caps how many operations this process has in flight at once.
+ */
+class RetryPolicy {
+    @FunctionalInterface
+    interface ZkOp<T> {
+        T run() throws KeeperException, InterruptedException;
+    }
+
+    final long baseMs;
+    final long capMs;
+    final int maxAttempts;
+    private final Semaphore inFlight;
+    // SyncPrimitive.mutex, which must not be held while blocking
+    private final Object lock;
+
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong recovered = new AtomicLong();
+
+    RetryPolicy(long baseMs, long capMs, int maxAttempts, int maxInFlight, Object lock) {
+        this.baseMs = baseMs;
+        this.capMs = capMs;
+        this.maxAttempts = maxAttempts;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.lock = lock;
+    }
+
+    static RetryPolicy fromProperties(Object lock) {
+        return new RetryPolicy(Long.getLong("barrier.retry.baseMs", 50),
+                               Long.getLong("barrier.retry.capMs", 2_000),
+                               Integer.getInteger("barrier.retry.maxAttempts", 10),
+                               Integer.getInteger("barrier.maxInFlight", 8),
+                               lock);
+    }
+
+    <T> T run(String what, ZkOp<T> op) throws KeeperException, InterruptedException {
+        return run(what, op, null);
+    }
+
+    /**
+     * Run op, retrying it on ConnectionLoss and OperationTimeout. Before each retry, recover (if given) is asked
+     * whether the lost attempt took effect on the server anyway. A non-null answer is returned as the result.
+     */
+    <T> T run(String what, ZkOp<T> op, ZkOp<T> recover) throws KeeperException, InterruptedException {
+        long sleep = baseMs;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                if (attempt > 1 && recover != null) {
+                    T previous = call(recover);
+                    if (previous != null) {
+                        recovered.incrementAndGet();
+                        return previous;
+                    }
+                }
+                return call(op);
+            } catch (KeeperException.ConnectionLossException | KeeperException.OperationTimeoutException e) {
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+                sleep = Math.min(capMs, ThreadLocalRandom.current().nextLong(baseMs, sleep * 3 + 1));
+                retries.incrementAndGet();
+                System.out.println(LocalTime.now() + ": " + e.code() + " on " + what + ", retrying in " + sleep
+                                   + " ms (attempt " + (attempt + 1) + "/" + maxAttempts + ")");
+                pause(sleep);
+            }
+        }
+    }
+
+    private <T> T call(ZkOp<T> op) throws KeeperException, InterruptedException {
+        acquire();
+        try {
+            return op.run();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Take one in-flight slot. With the mutex held, it is released while waiting: the event thread needs it to
+     * deliver the callbacks that complete the operations holding the other slots.
+     */
+    void acquire() throws InterruptedException {
+        if (Thread.holdsLock(lock)) {
+            while (!inFlight.tryAcquire()) {
+                lock.wait(10);
+            }
+        } else {
+            inFlight.acquire();
+        }
+    }
+
+    void release() {
+        inFlight.release();
+    }
+
+    /**
+     * Back off without holding the mutex, so watch events keep flowing. The coalescer keeps the wakeups they carry.
+     */
+    private void pause(long ms) throws InterruptedException {
+        if (Thread.holdsLock(lock)) {
+            long deadline = System.nanoTime() + ms * 1_000_000;
+            for (long left = ms; left > 0; left = (deadline - System.nanoTime()) / 1_000_000) {
+                lock.wait(left);
+            }
+        } else {
+            Thread.sleep(ms);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ZooKeeper retries: retried=%d, lost writes recovered=%d", retries.get(), recovered.get());
+    }
+}
@@ -0,0 +1,85 @@
+package br.ufpa;
+
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.time.LocalTime;
+
+import static br.ufpa.SyncPrimitive.log;
+
+/**
+ * Barrier client for processes running next to a {@link BarrierSidecar}. It does not open a ZooKeeper
+ * session; every call is forwarded to the sidecar through its Unix domain socket.
+ */
+public class SidecarBarrier implements IBarrier {
+    final SocketChannel channel;
+
+    SidecarBarrier(Path socketPath) throws IOException {
+        this.channel = SocketChannel.open(UnixDomainSocketAddress.of(socketPath));
+    }
+
+    public boolean enter() {
+        System.out.println(LocalTime.now() + ": Waiting for more processes to enter the barrier...");
+        return call(BarrierSidecar.ENTER);
+    }
+
+    public boolean leave() {
+        System.out.println(LocalTime.now() + ": Waiting to leave the barrier");
+        return call(BarrierSidecar.LEAVE);
+    }
+
+    /**
+     * Send a request and block until the sidecar releases the round
+     */
+    private boolean call(byte op) {
+        try {
+            channel.write(ByteBuffer.wrap(new byte[]{op}));
+            var response = ByteBuffer.allocate(1);
+            if (channel.read(response) < 0) {
+                log.error("Sidecar closed the connection");
+                return false;
+            }
+            return response.get(0) == BarrierSidecar.OK;
+        } catch (IOException e) {
+            log.error(e.toString());
+            return false;
+        }
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.error(e.toString());
+        }
+    }
+
+    public static void main(String[] args) {
+        System.out.println("### BARREIRA VIA SIDECAR ###");
+        if (args.length < 1) {
+            System.out.println("USO: java -jar barreira_sidecar_cliente.jar <socket>");
+            System.exit(-1);
+        }
+
+        SidecarBarrier barrier = null;
+        try {
+            barrier = new SidecarBarrier(Path.of(args[0]));
+        } catch (IOException e) {
+            log.error(e.toString());
+            System.exit(-1);
+        }
+
+        boolean flag = barrier.enter();
+        System.out.println("ALL PROCESSES JOINED BARRIER");
+        if (!flag) System.out.println("Error when entering the barrier");
+
+        Worker.doWork();
+
+        flag = barrier.leave();
+        if (!flag) System.out.println("Error when leaving the barrier");
+        System.out.println("Left barrier");
+        barrier.close();
+    }
+}
@@ -1,8 +1,6 @@
 package br.ufpa;
 
-import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
-import org.apache.zookeeper.ZooDefs;
 
 import java.time.LocalTime;
 
@@ -20,10 +18,12 @@ public class SimpleBarrier extends SyncPrimitive {
             System.out.println("Condition met. Creating barrier node...");
             // Create barrier node
             try {
-                if (zk.exists(root, true) == null) {
-                    zk.create(root, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+                if (exists(root, true) == null) {
+                    createMarker(root);
                     System.out.println(LocalTime.now() + ": Barrier node created");
                 }
+            } catch (KeeperException.NodeExistsException ignored) {
+                // Created by another starter, or by our own create before the connection was lost
             } catch (KeeperException e) {
                 log.error("Keeper exception when instantiating queue: " + e);
             } catch (InterruptedException e) {
@@ -42,12 +42,12 @@ public class SimpleBarrier extends SyncPrimitive {
         try {
             while (true) {
                 synchronized (mutex) {
-                    if (zk.exists(root, true) != null) {
+                    if (exists(root, true) != null) {
                         System.out.println(LocalTime.now() + ": Free to do some work...");
                         return;
                     }
                     System.out.println(LocalTime.now() + ": Waiting for event...");
-                    mutex.wait();
+                    waitForEvent();
                 }
             }
         } catch (KeeperException e) {
@@ -59,7 +59,7 @@ public class SimpleBarrier extends SyncPrimitive {
 
     public void RemoveBarrier() {
         try {
-            zk.delete(root, 0);
+            delete(root, 0);
             System.out.println("Barrier node deleted");
         } catch (InterruptedException | KeeperException e) {
             log.error(e.toString());
@@ -0,0 +1,104 @@
+package br.ufpa;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static br.ufpa.SyncPrimitive.log;
+
+/**
+ * Offline analysis of the spans written by {@link SpanRecorder}. Merges the files of all participants and, for
+ * every phase of every barrier run, shows who arrived last, how far apart the arrivals were and how long the
+ * release took to reach everyone. Ends with how often each participant (and its host) was the last to arrive.
+ */
+public final class SpanAnalyzer {
+    private static final Pattern FIELD = Pattern.compile("\"(\\w+)\":(?:\"((?:[^\"\\\\]|\\\\.)*)\"|(-?\\d+))");
+
+    private SpanAnalyzer() {
+    }
+
+    record Span(String barrier, String run, String subset, String level, String phase, String participant,
+                String host, long seq, long arrivalUs, long releaseUs) {
+        String phaseKey() {
+            return barrier + " " + run + " " + level + " " + phase;
+        }
+
+        String who() {
+            return participant.equals(host) ? host : participant + "@" + host;
+        }
+    }
+
+    static Span parse(String line) {
+        Map<String, String> fields = new HashMap<>();
+        var matcher = FIELD.matcher(line);
+        while (matcher.find()) {
+            var text = matcher.group(2);
+            fields.put(matcher.group(1), text != null ? text.replace("\\\"", "\"").replace("\\\\", "\\")
+                                                      : matcher.group(3));
+        }
+        return new Span(fields.get("barrier"), fields.getOrDefault("run", "-"), fields.get("subset"),
+                        fields.get("level"), fields.get("phase"),
+                        fields.get("participant"), fields.get("host"), Long.parseLong(fields.get("seq")),
+                        Long.parseLong(fields.get("arrivalUs")), Long.parseLong(fields.get("releaseUs")));
+    }
+
+    static void analyze(List<Span> spans) {
+        Map<String, List<Span>> phases = new LinkedHashMap<>();
+        spans.stream()
+             .sorted(Comparator.comparingLong(Span::arrivalUs))
+             .forEach(span -> phases.computeIfAbsent(span.phaseKey(), k -> new ArrayList<>()).add(span));
+
+        Map<String, Integer> lastArrivals = new HashMap<>();
+        for (var entry : phases.entrySet()) {
+            var phase = entry.getValue();
+            var first = phase.getFirst();
+            var last = phase.getLast();
+            var slowestRelease = phase.stream().max(Comparator.comparingLong(Span::releaseUs)).orElseThrow();
+            long skew = last.arrivalUs() - first.arrivalUs();
+            // Time from the last arrival until the slowest participant saw the barrier open
+            long releaseDelay = slowestRelease.releaseUs() - last.arrivalUs();
+
+            System.out.printf("%s: participants=%d last=%s (seq %d) skew=%.1fms release delay=%.1fms (slowest %s)%n",
+                              entry.getKey(), phase.size(), last.who(), last.seq(),
+                              skew / 1e3, releaseDelay / 1e3, slowestRelease.who());
+            if (phase.size() > 1 && last.phase().equals("enter")) {
+                lastArrivals.merge(last.who(), 1, Integer::sum);
+            }
+        }
+
+        System.out.println("\nLast to arrive (enter phases):");
+        lastArrivals.entrySet().stream()
+                    .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+                    .forEach(e -> System.out.println("  " + e.getKey() + ": " + e.getValue()));
+    }
+
+    public static void main(String[] args) {
+        System.out.println("### ANALISE DE SPANS ###");
+        if (args.length < 1) {
+            System.out.println("USO: java -jar barreira.jar analise <spans.jsonl>...");
+            System.exit(-1);
+        }
+
+        List<Span> spans = new ArrayList<>();
+        for (String file : args) {
+            try {
+                for (String line : Files.readAllLines(Path.of(file))) {
+                    if (!line.isBlank()) {
+                        spans.add(parse(line));
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                log.error("Could not read spans from " + file + ": " + e);
+                System.exit(-1);
+            }
+        }
+        analyze(spans);
+    }
+}
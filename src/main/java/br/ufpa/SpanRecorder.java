@@ -0,0 +1,83 @@
+package br.ufpa;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+import static br.ufpa.SyncPrimitive.log;
+
+/**
+ * Appends one JSON line per participant per barrier phase to the file given by -Dbarrier.spansFile, with the
+ * arrival and release timestamps, the znode sequence and the host. The run id tells apart the barrier instances
+ * that reuse the same names, such as repeated jobs or rounds appending to one file. Files from every participant
+ * can then be merged by {@link SpanAnalyzer}. Does nothing when the property is not set.
+ */
+public final class SpanRecorder {
+    private static final String spansFile = System.getProperty("barrier.spansFile");
+    private static final String host = hostName();
+
+    private SpanRecorder() {
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getCanonicalHostName();
+        } catch (UnknownHostException e) {
+            return "unknown";
+        }
+    }
+
+    /**
+     * Wall-clock time in microseconds, comparable across hosts as far as their clocks are synchronized
+     */
+    static long now() {
+        return ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now());
+    }
+
+    /**
+     * Record a phase that started at arrivalUs and is being released now
+     */
+    static void record(String barrier, String run, String subset, String level, String phase, String participant,
+                       String node, long arrivalUs) {
+        if (spansFile == null) {
+            return;
+        }
+        long releaseUs = now();
+        var line = "{\"barrier\":\"" + escape(barrier) + "\",\"run\":\"" + escape(run)
+                + "\",\"subset\":\"" + escape(subset)
+                + "\",\"level\":\"" + escape(level) + "\",\"phase\":\"" + phase
+                + "\",\"participant\":\"" + escape(participant) + "\",\"host\":\"" + escape(host)
+                + "\",\"seq\":" + sequence(node) + ",\"arrivalUs\":" + arrivalUs + ",\"releaseUs\":" + releaseUs
+                + "}\n";
+        synchronized (SpanRecorder.class) {
+            try {
+                Files.writeString(Path.of(spansFile), line, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                log.error("Could not write span to " + spansFile + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Sequence number ZooKeeper appended to the node name, or -1 if the node was not created
+     */
+    private static long sequence(String node) {
+        if (node == null || node.length() < 10) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(node.substring(node.length() - 10));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String escape(String value) {
+        return value == null ? "" : value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -1,28 +1,51 @@
 package br.ufpa;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
 import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
 
 public class SyncPrimitive implements Watcher {
     protected static final Logger log = LoggerFactory.getLogger(SyncPrimitive.class);
     static ZooKeeper zk = null;
     protected static final Object mutex = new Object();
+    static final EventCoalescer coalescer = new EventCoalescer();
+    static final RetryPolicy retry = RetryPolicy.fromProperties(mutex);
+
+    // Let the server garbage-collect barrier trees: parents become CONTAINER nodes, ready markers TTL nodes and
+    // the final deletes are issued asynchronously. TTL nodes need zookeeper.extendedTypesEnabled=true on the server.
+    static final boolean serverCleanup = Boolean.getBoolean("barrier.serverCleanup");
+    static final long markerTtlMs = Long.getLong("barrier.markerTtlMs", 60_000);
+    // Cleared when the server rejects TTL nodes, after which markers are created persistent
+    static volatile boolean ttlSupported = true;
+    // Random delay before connecting, so processes relaunched together do not hit the ensemble together
+    static final long connectJitterMs = Long.getLong("barrier.connectJitterMs", 0);
 
     String root;
 
     SyncPrimitive(String address) {
         if(zk == null){
             try {
+                if (connectJitterMs > 0) {
+                    Thread.sleep(ThreadLocalRandom.current().nextLong(connectJitterMs));
+                }
                 System.out.println("Starting ZK:");
                 zk = new ZooKeeper(address, 3000, this);
                 System.out.println("Finished starting ZK: " + zk);
-            } catch (IOException e) {
+            } catch (IOException | InterruptedException e) {
                 log.error(e.toString());
                 zk = null;
             }
@@ -41,11 +64,170 @@ public class SyncPrimitive implements Watcher {
 //            } catch (InterruptedException e) {
 //                log.error(e.toString());
 //            }
-            mutex.notify();
+            if (coalescer.offer(event)) {
+                // notifyAll: a thread backing off in RetryPolicy also waits on mutex and must not take the wakeup
+                mutex.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Create a barrier parent node if it does not exist yet. Losing the creation race to another process is fine.
+     */
+    protected void createParent(String path) throws KeeperException, InterruptedException {
+        try {
+            if (exists(path, false) == null) {
+                retry.run("create " + path, () -> zk.create(path, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                                                            serverCleanup ? CreateMode.CONTAINER : CreateMode.PERSISTENT));
+            }
+        } catch (KeeperException.NodeExistsException ignored) {
+            // Another process created it first, or our own create went through before the connection was lost
+        }
+    }
+
+    protected Stat exists(String path, boolean watch) throws KeeperException, InterruptedException {
+        return retry.run("exists " + path, () -> zk.exists(path, watch));
+    }
+
+    /**
+     * Create a sequential node holding the participant id and a token unique to this call. If the connection is
+     * lost before the reply, the create may still have happened. Before retrying, the node is looked up among its
+     * siblings by that token, so the participant never ends up with two nodes.
+     */
+    protected String createSequential(String path, String participantId, CreateMode mode)
+            throws KeeperException, InterruptedException {
+        var token = (participantId + " " + UUID.randomUUID()).getBytes(StandardCharsets.UTF_8);
+        var parent = path.substring(0, path.lastIndexOf('/'));
+        var prefix = path.substring(path.lastIndexOf('/') + 1);
+        return retry.run("create " + path, () -> zk.create(path, token, ZooDefs.Ids.OPEN_ACL_UNSAFE, mode), () -> {
+            for (String child : zk.getChildren(parent, false)) {
+                // Sequential names are the prefix followed by 10 digits
+                if (child.startsWith(prefix) && child.length() == prefix.length() + 10) {
+                    try {
+                        if (Arrays.equals(zk.getData(parent + "/" + child, false, null), token)) {
+                            System.out.println("Recovered node created before the connection loss: " + child);
+                            return parent + "/" + child;
+                        }
+                    } catch (KeeperException.NoNodeException ignored) {
+                        // Deleted in the meantime, so not ours
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Delete a node. A retry after a connection loss finding the node gone counts as done.
+     */
+    protected void delete(String path, int version) throws KeeperException, InterruptedException {
+        retry.run("delete " + path, () -> {
+            zk.delete(path, version);
+            return true;
+        }, () -> zk.exists(path, false) == null ? true : null);
+    }
+
+    /**
+     * Create a marker node such as ready. With server-side cleanup it expires if nobody deletes it. A server
+     * without extendedTypesEnabled rejects TTL nodes, and then the marker is created persistent instead of
+     * failing, since the peers waiting for it would hang otherwise.
+     */
+    protected String createMarker(String path) throws KeeperException, InterruptedException {
+        // After a connection loss, an existing marker means our create (or an equivalent one) went through
+        RetryPolicy.ZkOp<String> recover = () -> zk.exists(path, false) != null ? path : null;
+        if (serverCleanup && ttlSupported) {
+            try {
+                return retry.run("create " + path, () -> zk.create(path, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                                                                   CreateMode.PERSISTENT_WITH_TTL, null, markerTtlMs),
+                                 recover);
+            } catch (KeeperException.UnimplementedException e) {
+                ttlSupported = false;
+                log.error("Server does not support TTL nodes (extendedTypesEnabled=true is missing), "
+                          + "creating persistent markers");
+            }
+        }
+        return retry.run("create " + path, () -> zk.create(path, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                                                           CreateMode.PERSISTENT), recover);
+    }
+
+    /**
+     * Delete the given nodes in order. With server-side cleanup the deletes are pipelined without waiting for
+     * the replies, and nodes that are gone or still in use are left for the server to collect.
+     */
+    protected void deleteNodes(String... paths) throws KeeperException, InterruptedException {
+        for (String path : paths) {
+            if (serverCleanup) {
+                retry.acquire();
+                zk.delete(path, -1, (rc, p, ctx) -> {
+                    retry.release();
+                    var code = KeeperException.Code.get(rc);
+                    if (code != KeeperException.Code.OK && code != KeeperException.Code.NONODE
+                            && code != KeeperException.Code.NOTEMPTY) {
+                        log.error("Could not delete " + p + ": " + code);
+                    }
+                }, null);
+                System.out.println("Deleting: " + path);
+            } else {
+                delete(path, -1);
+                System.out.println("Deleted: " + path);
+            }
+        }
+    }
+
+    /**
+     * getChildren that lets the coalescer drop the watch events this read already covers. The read is issued
+     * asynchronously so its completion is ordered with the watch events, and mutex is released while waiting.
+     */
+    protected List<String> readChildren(String path, boolean watch) throws KeeperException, InterruptedException {
+        synchronized (mutex) {
+            return retry.run("getChildren " + path, () -> {
+                var result = new ChildrenResult();
+                if (watch) {
+                    coalescer.beginRead(path);
+                }
+                zk.getChildren(path, watch, (rc, p, ctx, children, stat) -> {
+                    synchronized (mutex) {
+                        if (watch) {
+                            coalescer.endRead(p, stat);
+                        }
+                        result.rc = rc;
+                        result.children = children;
+                        result.done = true;
+                        mutex.notifyAll();
+                    }
+                }, null);
+                while (!result.done) {
+                    mutex.wait();
+                }
+                if (result.rc != KeeperException.Code.OK.intValue()) {
+                    throw KeeperException.create(KeeperException.Code.get(result.rc), path);
+                }
+                return result.children;
+            });
+        }
+    }
+
+    private static class ChildrenResult {
+        boolean done;
+        int rc;
+        List<String> children;
+    }
+
+    /**
+     * Wait for a watch event, unless one already arrived while we were not waiting. Must hold mutex.
+     */
+    protected void waitForEvent() throws InterruptedException {
+        if (!coalescer.consume()) {
+            mutex.wait();
+            coalescer.consume();
         }
     }
 
     public void close() {
+        synchronized (mutex) {
+            System.out.println(coalescer);
+            System.out.println(retry);
+        }
         try {
             zk.close();
         } catch (InterruptedException e) {